@@ -16,6 +16,7 @@
 
 #include <stdio.h>
 #include <stdlib.h>
+#include <stdint.h>
 #include <jni.h>
 #include <sylvan.h>
 #include <lace.h>
@@ -331,6 +332,73 @@ Java_jsylvan_JSylvan_fprintDot(JNIEnv *env, jclass cl, jstring filename, jlong b
     (*env)->ReleaseStringUTFChars(env, filename, path);
 }
 
+JNIEXPORT jbyteArray JNICALL
+Java_jsylvan_JSylvan_toBinary(JNIEnv *env, jclass cl, jlongArray bdds)
+{
+    LACE_ME;
+    int count = (*env)->GetArrayLength(env, bdds);
+    jlong *src = (*env)->GetLongArrayElements(env, bdds, 0);
+
+    // the stream starts with the number of BDDs, followed by the Sylvan binary format
+    char *buf = NULL;
+    size_t size = 0;
+    FILE *f = open_memstream(&buf, &size);
+    if (f == NULL) {
+        (*env)->ReleaseLongArrayElements(env, bdds, src, JNI_ABORT);
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/RuntimeException"), "cannot allocate BDD binary data");
+        return NULL;
+    }
+    fwrite(&count, sizeof(int), 1, f);
+    mtbdd_writer_tobinary(f, (MTBDD*)src, count);
+    fclose(f);
+
+    (*env)->ReleaseLongArrayElements(env, bdds, src, JNI_ABORT);
+
+    // a Java array holds at most 2^31-1 bytes
+    if (size > INT32_MAX) {
+        free(buf);
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/RuntimeException"), "BDD binary data exceeds 2 GB");
+        return NULL;
+    }
+
+    jbyteArray result = (*env)->NewByteArray(env, (jsize)size);
+    if (result != NULL) (*env)->SetByteArrayRegion(env, result, 0, (jsize)size, (jbyte*)buf);
+    free(buf);
+    return result; // if NULL, NewByteArray has thrown OutOfMemoryError
+    (void)cl;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_jsylvan_JSylvan_fromBinary(JNIEnv *env, jclass cl, jbyteArray data)
+{
+    LACE_ME;
+    jsize size = (*env)->GetArrayLength(env, data);
+    jbyte *src = (*env)->GetByteArrayElements(env, data, 0);
+
+    jlongArray result = NULL;
+    MTBDD *dds = NULL;
+    FILE *f = size > 0 ? fmemopen(src, size, "rb") : NULL;
+    int count;
+    if (f == NULL || fread(&count, sizeof(int), 1, f) != 1 || count < 0) goto invalid;
+
+    dds = (MTBDD*)malloc(sizeof(MTBDD) * (count > 0 ? count : 1));
+    if (mtbdd_reader_frombinary(f, dds, count) != 0) goto invalid;
+
+    result = (*env)->NewLongArray(env, count);
+    (*env)->SetLongArrayRegion(env, result, 0, count, (jlong*)dds);
+    goto done;
+
+invalid:
+    (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/RuntimeException"), "invalid BDD binary data");
+
+done:
+    if (f != NULL) fclose(f);
+    free(dds);
+    (*env)->ReleaseByteArrayElements(env, data, src, JNI_ABORT);
+    return result;
+    (void)cl;
+}
+
 TASK_3(BDD, union_par, BDD*, arr, int, first, int, last)
 {
     if (first == last) return arr[first];
@@ -19,6 +19,8 @@ package jsylvan;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
 
 /**
  * Java bindings for Sylvan.
@@ -33,7 +35,7 @@ import java.util.ArrayList;
  * Missing functions:
  * - nand, nor, invimp, diff, less
  * - sat_one (give one satisfying assignment)
- * - visitors, serialization
+ * - visitors
  */
 public class JSylvan
 {
@@ -259,6 +261,21 @@ public class JSylvan
      */
     public static native void fprintDot(String filename, long bdd);
 
+    /**
+     * Serialize the given BDDs to a compact binary form.
+     *
+     * The result can be sent to another process and read with fromBinary.
+     * Throws a RuntimeException if the result would exceed the 2 GB limit of Java arrays.
+     */
+    public static native byte[] toBinary(long[] bdds);
+
+    /**
+     * Read BDDs that were serialized with toBinary, possibly by another process.
+     *
+     * The resulting BDDs are not ref'ed, for reasons of consistency.
+     */
+    public static native long[] fromBinary(byte[] data);
+
     /**
      * Turn off automatic garbage collection, instead program will exit.
      */
@@ -330,6 +347,80 @@ public class JSylvan
         return res;
     }
 
+    /**
+     * Compute an under-approximation of <bdd> of at most <threshold> nodes by heavy-branch subsetting.
+     *
+     * From the root, the branch with the most satisfying assignments is followed, and the
+     * lighter branches are kept or subsetted only as far as the node budget allows.
+     * Sizes of subgraphs are estimated without sharing, so the result may be smaller than needed.
+     *
+     * The result is only False if <bdd> is False: if <threshold> is too small to keep any path,
+     * the single path along the heavy branches is returned, which can exceed <threshold>.
+     */
+    public static long makeSubsetHeavyBranch(long bdd, long threshold)
+    {
+        return subset(bdd, threshold, false);
+    }
+
+    /**
+     * Compute an under-approximation of <bdd> of at most <threshold> nodes by short-path subsetting.
+     *
+     * Keeps all paths to True with at most L literals. L starts at the length of the shortest path
+     * and is increased as long as the result fits in <threshold>. The size of the result does not
+     * grow monotonically with L, so a larger L that also fits may exist.
+     * If even the shortest paths do not fit, these are subsetted with makeSubsetHeavyBranch.
+     */
+    public static long makeSubsetShortPaths(long bdd, long threshold)
+    {
+        if (bdd == one || bdd == zero || nodecount(bdd) <= threshold) return bdd;
+
+        Map<Long, Integer> dist = new HashMap<Long, Integer>();
+        int min = shortestPath(bdd, dist);
+        int max = fromSet(makeSupport(bdd)).length;
+
+        long result = shortPaths(bdd, min, dist);
+        if (nodecount(result) > threshold) {
+            long temp = ref(makeSubsetHeavyBranch(result, threshold));
+            deref(result);
+            result = temp;
+        } else {
+            // with all paths (length max) the result is <bdd> itself, which does not fit
+            for (int length=min+1; length<max; length++) {
+                long temp = shortPaths(bdd, length, dist);
+                if (nodecount(temp) > threshold) {
+                    deref(temp);
+                    break;
+                }
+                deref(result);
+                result = temp;
+            }
+        }
+        deref(result);
+        return result; // this is not ref'ed, for reasons of consistency
+    }
+
+    /**
+     * Compute an under-approximation of <bdd> of at most <threshold> nodes by remapping.
+     *
+     * Like makeSubsetHeavyBranch, but a node whose light branch implies its heavy branch may be
+     * replaced by the light branch. This is only done if the fraction of satisfying assignments
+     * that is lost is at most the fraction of nodes that is saved.
+     */
+    public static long makeUnderApprox(long bdd, long threshold)
+    {
+        return subset(bdd, threshold, true);
+    }
+
+    /**
+     * Compute an over-approximation of <bdd> of at most <threshold> nodes.
+     *
+     * This is the complement of makeUnderApprox of the complement of <bdd>.
+     */
+    public static long makeOverApprox(long bdd, long threshold)
+    {
+        return makeNot(makeUnderApprox(makeNot(bdd), threshold));
+    }
+
     /**
      * Functionality of "BDD mapping" used by compose
      * - mapEmpty: return an empty mapping
@@ -367,6 +458,215 @@ public class JSylvan
 
     /* Private stuff */
 
+    private static long subset(long bdd, long threshold, boolean remap)
+    {
+        if (bdd == one || bdd == zero || nodecount(bdd) <= threshold) return bdd;
+        Subsetter subsetter = new Subsetter(remap);
+        subsetter.visit(bdd, threshold - 1); // reserve a node, in case nodecount includes the terminal
+        long result = ref(subsetter.build(bdd));
+        if (result == zero) result = subsetter.heavyPath(bdd);
+        subsetter.free();
+        deref(result);
+        return result; // this is not ref'ed, for reasons of consistency
+    }
+
+    /**
+     * Heavy-branch subsetting in two passes, each visiting every node at most once.
+     * First visit() decides per node whether it is kept, then build() constructs the result.
+     */
+    private static class Subsetter
+    {
+        private static final int KEEP = 0;     // keep the node and everything below it
+        private static final int PARTIAL = 1;  // keep the node, with subsetted branches
+        private static final int REMAP = 2;    // replace the node by its light branch
+
+        private static final long MAX_SIZE = Long.MAX_VALUE / 4;
+
+        private final boolean remap;
+        private final Map<Long, Double> density = new HashMap<Long, Double>();
+        private final Map<Long, Long> size = new HashMap<Long, Long>();
+        private final Map<Long, Integer> decision = new HashMap<Long, Integer>();
+        private final Map<Long, Long> built = new HashMap<Long, Long>();
+
+        Subsetter(boolean remap)
+        {
+            this.remap = remap;
+        }
+
+        /**
+         * Fraction of all assignments that satisfy <f>.
+         */
+        double density(long f)
+        {
+            if (f == one) return 1.0;
+            if (f == zero) return 0.0;
+            Double cached = density.get(f);
+            if (cached != null) return cached;
+            double result = (density(getThen(f)) + density(getElse(f))) / 2;
+            density.put(f, result);
+            return result;
+        }
+
+        /**
+         * Number of nodes of <f>, counted without sharing, so an upper bound of nodecount.
+         */
+        long size(long f)
+        {
+            if (f == one || f == zero) return 0;
+            Long cached = size.get(f);
+            if (cached != null) return cached;
+            long result = Math.min(MAX_SIZE, 1 + size(getThen(f)) + size(getElse(f)));
+            size.put(f, result);
+            return result;
+        }
+
+        /**
+         * Decide which nodes of <f> to keep with at most <budget> nodes; returns the nodes used.
+         * Nodes that were already decided via another path are shared and cost nothing.
+         */
+        long visit(long f, long budget)
+        {
+            if (f == one || f == zero || decision.containsKey(f)) return 0;
+            if (size(f) <= budget) {
+                decision.put(f, KEEP);
+                return size(f);
+            }
+            if (budget < 1) return 0;
+
+            long hi = getThen(f), lo = getElse(f);
+            boolean hiHeavy = density(hi) >= density(lo);
+            long heavy = hiHeavy ? hi : lo;
+            long light = hiHeavy ? lo : hi;
+
+            if (remap && worthRemap(f, heavy, light)) {
+                decision.put(f, REMAP);
+                return visit(light, budget);
+            }
+
+            decision.put(f, PARTIAL);
+            long used = 1;
+            used += visit(heavy, budget - used);
+            used += visit(light, budget - used);
+            return used;
+        }
+
+        /**
+         * Replacing <f> by <light> is a subset if <light> implies <heavy>, and worth it if
+         * the fraction of lost assignments is less than the fraction of saved nodes.
+         * Never remap to a constant: that would drop the whole heavy branch for one node.
+         */
+        private boolean worthRemap(long f, long heavy, long light)
+        {
+            if (light == zero || light == one) return false;
+            double lost = (density(heavy) - density(light)) / 2;
+            double saved = size(f) - size(light);
+            if (lost / density(f) >= saved / size(f)) return false;
+            return makeImplies(light, heavy) == one;
+        }
+
+        /**
+         * Construct the subset of <f> according to the decisions.
+         * The result is ref'ed by this Subsetter or part of <f>; release with free().
+         */
+        long build(long f)
+        {
+            if (f == one || f == zero) return f;
+            Integer d = decision.get(f);
+            if (d == null) return zero;
+            if (d == KEEP) return f;
+
+            Long cached = built.get(f);
+            if (cached != null) return cached;
+
+            long hi = getThen(f), lo = getElse(f);
+            long result;
+            if (d == REMAP) {
+                result = ref(build(density(hi) >= density(lo) ? lo : hi));
+            } else {
+                // results are ref'ed in the cache, so the first one survives computing the second
+                long high = build(hi);
+                long low = build(lo);
+                long var = ref(getIf(f));
+                result = ref(makeIte(var, high, low));
+                deref(var);
+            }
+            built.put(f, result);
+            return result;
+        }
+
+        /**
+         * Compute the path of <f> that follows the heavy branches, as a cube. The result is ref'ed.
+         */
+        long heavyPath(long f)
+        {
+            if (f == one || f == zero) return f;
+
+            long hi = getThen(f), lo = getElse(f);
+            boolean hiHeavy = density(hi) >= density(lo);
+            long sub = heavyPath(hiHeavy ? hi : lo);
+
+            long var = ref(getIf(f));
+            long result = ref(makeAnd(hiHeavy ? var : makeNot(var), sub));
+            deref(var);
+            deref(sub);
+            return result;
+        }
+
+        void free()
+        {
+            for (long bdd : built.values()) deref(bdd);
+            built.clear();
+        }
+    }
+
+    /**
+     * Compute the minimal number of literals on a path from <f> to True.
+     */
+    private static int shortestPath(long f, Map<Long, Integer> dist)
+    {
+        if (f == one) return 0;
+        if (f == zero) return Integer.MAX_VALUE / 2;
+
+        Integer cached = dist.get(f);
+        if (cached != null) return cached;
+
+        int result = 1 + Math.min(shortestPath(getThen(f), dist), shortestPath(getElse(f), dist));
+        dist.put(f, result);
+        return result;
+    }
+
+    /**
+     * Keep only the paths from <f> to True with at most <length> literals. The result is ref'ed.
+     */
+    private static long shortPaths(long f, int length, Map<Long, Integer> dist)
+    {
+        List<Map<Long, Long>> cache = new ArrayList<Map<Long, Long>>();
+        for (int i=0; i<=length; i++) cache.add(new HashMap<Long, Long>());
+        long result = ref(shortPaths(f, length, dist, cache));
+        for (Map<Long, Long> m : cache) {
+            for (long bdd : m.values()) deref(bdd);
+        }
+        return result;
+    }
+
+    private static long shortPaths(long f, int length, Map<Long, Integer> dist, List<Map<Long, Long>> cache)
+    {
+        if (f == one || f == zero) return f;
+        if (dist.get(f) > length) return zero;
+
+        Long cached = cache.get(length).get(f);
+        if (cached != null) return cached;
+
+        // results are ref'ed in the cache, so the first one survives computing the second
+        long high = shortPaths(getThen(f), length-1, dist, cache);
+        long low = shortPaths(getElse(f), length-1, dist, cache);
+        long var = ref(getIf(f));
+        long result = ref(makeIte(var, high, low));
+        deref(var);
+        cache.get(length).put(f, result);
+        return result;
+    }
+
     private static long zero;  // the BDD representing False
     private static long one;   // the BDD representing True
 
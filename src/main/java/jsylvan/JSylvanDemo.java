@@ -82,6 +82,36 @@ public class JSylvanDemo
         result = JSylvan.ref(JSylvan.makeUnionPar(new long[]{a, b, c, d, e}));
         if (result != JSylvan.makeOr(JSylvan.makeOr(a, b),JSylvan.makeOr(c,JSylvan.makeOr(d,e)))) System.out.println("Fail test 2.");
 
+        System.out.println("Going to test approximation...");
+
+        // g: x2..x7 pairwise equal to x8..x13, which needs many nodes in this variable order
+        long g = JSylvan.getTrue();
+        for (int i=2; i<8; i++) {
+            long eq = JSylvan.ref(JSylvan.makeEquals(JSylvan.makeVar(i), JSylvan.makeVar(i+6)));
+            long temp = JSylvan.ref(JSylvan.makeAnd(g, eq));
+            JSylvan.deref(eq);
+            JSylvan.deref(g);
+            g = temp;
+        }
+        long x0 = JSylvan.ref(JSylvan.makeVar(0));
+        long f = JSylvan.ref(JSylvan.makeAnd(x0, g));
+        long vars = JSylvan.ref(JSylvan.makeSet(new int[]{0,1,2,3,4,5,6,7,8,9,10,11,12,13}));
+        long threshold = JSylvan.nodecount(f) / 2;
+
+        // x0 & g: the under-approximations must not collapse to False or a single path
+        long heavy = JSylvan.ref(JSylvan.makeSubsetHeavyBranch(f, threshold));
+        long under = JSylvan.ref(JSylvan.makeUnderApprox(f, threshold));
+        long over = JSylvan.ref(JSylvan.makeOverApprox(f, threshold));
+        if (JSylvan.makeImplies(heavy, f) != JSylvan.getTrue() || JSylvan.nodecount(heavy) > threshold) System.out.println("Fail test 3.");
+        if (JSylvan.makeImplies(under, f) != JSylvan.getTrue() || JSylvan.nodecount(under) > threshold) System.out.println("Fail test 4.");
+        if (JSylvan.satcount(under, vars) < JSylvan.satcount(heavy, vars) / 2) System.out.println("Fail test 5.");
+        if (JSylvan.makeImplies(f, over) != JSylvan.getTrue() || over == JSylvan.getTrue()) System.out.println("Fail test 6.");
+
+        // x0 | g: remapping must keep the states with x0 set
+        long h = JSylvan.ref(JSylvan.makeOr(x0, g));
+        long hUnder = JSylvan.ref(JSylvan.makeUnderApprox(h, JSylvan.nodecount(h) - 5));
+        if (JSylvan.makeImplies(x0, hUnder) != JSylvan.getTrue()) System.out.println("Fail test 7.");
+
         // And that concludes our little demonstration. TODO: make proper test class...
         System.out.println("Simple tests success!");
     }
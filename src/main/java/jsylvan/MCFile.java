@@ -29,7 +29,35 @@ class MCFile
     private long[] relations;
     private long[] relation_domains;
 
-    private native static MCFile fromFile(String filename);
+    native static MCFile fromFile(String filename);
+
+    /**
+     * Compute the successors of <states> over all transition groups.
+     * The result is ref'ed.
+     */
+    long next(long states) {
+        long result = JSylvan.getFalse();
+        for (int i=0; i<relations.length; i++) {
+            long a = JSylvan.ref(JSylvan.makeNext(states, relations[i], relation_domains[i]));
+            long b = JSylvan.ref(JSylvan.makeOr(result, a));
+            JSylvan.deref(a);
+            JSylvan.deref(result);
+            result = b;
+        }
+        return result;
+    }
+
+    long getInitial() {
+        return initial;
+    }
+
+    long getDomain() {
+        return domain;
+    }
+
+    long getTotalBits() {
+        return totalBits;
+    }
 
     public long bfs() {
         long level_counter = 1;
@@ -59,16 +87,92 @@ class MCFile
         return states;
     }
 
+    /**
+     * Reachability that explores at most <threshold> BDD nodes of the frontier per level.
+     *
+     * Each level, the unexplored states are subsetted to their dense part, and only that part
+     * is explored. The rest of the unexplored states is kept for later levels, so the final
+     * result is the same as bfs(). The <mode> selects the subsetting: "heavy" for
+     * makeSubsetHeavyBranch, "short" for makeSubsetShortPaths, "remap" for makeUnderApprox.
+     *
+     * Only the input of the image computation is bounded. The reached states and the
+     * unexplored states are still kept exactly, so this does not help if those do not fit.
+     */
+    public long bfsDense(long threshold, String mode) {
+        long level_counter = 1;
+        long states = JSylvan.ref(initial);
+        long explored = JSylvan.getFalse();
+        while (true) {
+            long todo = JSylvan.ref(JSylvan.makeIte(explored, JSylvan.getFalse(), states)); // todo = states - explored
+            if (todo == JSylvan.getFalse()) break;
+
+            long cur_states = JSylvan.ref(subset(todo, threshold, mode));
+            System.out.format("Level %d: %.0f states, exploring %.0f of %.0f (%d nodes)\n", level_counter++, JSylvan.satcount(states, domain),
+                    JSylvan.satcount(cur_states, domain), JSylvan.satcount(todo, domain), JSylvan.nodecount(cur_states));
+            JSylvan.deref(todo);
+
+            long temp = JSylvan.ref(JSylvan.makeOr(explored, cur_states));
+            JSylvan.deref(explored);
+            explored = temp;
+
+            long next = next(cur_states);
+            JSylvan.deref(cur_states);
+            temp = JSylvan.ref(JSylvan.makeOr(states, next));
+            JSylvan.deref(next);
+            JSylvan.deref(states);
+            states = temp;
+        }
+        JSylvan.deref(explored);
+
+        return states;
+    }
+
+    private static long subset(long bdd, long threshold, String mode) {
+        if (mode.equals("heavy")) return JSylvan.makeSubsetHeavyBranch(bdd, threshold);
+        if (mode.equals("short")) return JSylvan.makeSubsetShortPaths(bdd, threshold);
+        if (mode.equals("remap")) return JSylvan.makeUnderApprox(bdd, threshold);
+        throw new RuntimeException("unknown subsetting mode: " + mode);
+    }
+
+    /**
+     * Over-approximate the reachable states, keeping them at most <threshold> BDD nodes.
+     *
+     * Each level, the reached states are replaced by makeOverApprox of the reached states.
+     * The result contains all reachable states and possibly more, so states that are not
+     * in the result are certainly unreachable.
+     */
+    public long bfsOver(long threshold) {
+        long level_counter = 1;
+        long states = JSylvan.ref(initial);
+        long new_states = JSylvan.ref(states);
+        do {
+            System.out.format("Level %d: %.0f states (%d nodes)\n", level_counter++, JSylvan.satcount(states, domain), JSylvan.nodecount(states));
+            long cur_states = new_states;
+            long next = next(cur_states);
+            JSylvan.deref(cur_states);
+            long a = JSylvan.ref(JSylvan.makeOr(states, next));
+            JSylvan.deref(next);
+            long b = JSylvan.ref(JSylvan.makeOverApprox(a, threshold));
+            JSylvan.deref(a);
+            new_states = JSylvan.ref(JSylvan.makeIte(states, JSylvan.getFalse(), b)); // b - states
+            JSylvan.deref(states);
+            states = b;
+        } while (new_states != JSylvan.getFalse());
+        JSylvan.deref(new_states);
+
+        return states;
+    }
+
     public static void main(String[] args) {
         if (args.length == 0) {
-            System.out.println("Use: jsylvan.MCFile <filename> [workers]");
+            System.out.println("Use: jsylvan.MCFile <filename> [workers] [frontier nodes] [heavy|short|remap|over]");
             return;
         }
 
         // Load library first
         try {
             int w = 4;
-            if (args.length == 2) w = Integer.parseInt(args[1]);
+            if (args.length >= 2) w = Integer.parseInt(args[1]);
             // to use JSylvan, initialize it...
             // use at most 400 MB for the two tables
             // nodes table 2x as big as operation cache
@@ -87,7 +191,14 @@ class MCFile
         for (int i=0; i<f.relations.length; i++) System.out.format("Transition %d: %d BDD nodes\n", i, JSylvan.nodecount(f.relations[i]));
 
         final long t1 = System.nanoTime();
-        long result = f.bfs();
+        long result;
+        if (args.length < 3) {
+            result = f.bfs();
+        } else {
+            String mode = args.length >= 4 ? args[3] : "heavy";
+            if (mode.equals("over")) result = f.bfsOver(Long.parseLong(args[2]));
+            else result = f.bfsDense(Long.parseLong(args[2]), mode);
+        }
         final long t2 = System.nanoTime();
 
         System.out.format("Expired time: %d.%d seconds\n", (t2-t1)/1000000000, (t2-t1)%1000000000);
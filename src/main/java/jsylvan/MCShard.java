@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reachability of an MCFile model split over several processes on one host.
+ *
+ * Since JSylvan can only be initialized once per process, every partition of
+ * the state space is explored by its own JVM. With 2^k processes, process i owns
+ * the states whose top k state variables (0, 2, ..., 2k-2) encode i.
+ *
+ * A coordinator process starts the workers and connects to them over local sockets.
+ * Each BFS level, every worker computes the successors of its frontier and sends the
+ * successors owned by other workers (serialized with JSylvan.toBinary) to the
+ * coordinator, which streams them through to their owners without holding them.
+ * Workers send in a background thread while receiving, so the forwarding cannot deadlock.
+ * The workers then report whether they have new states; when no worker has new states,
+ * the search terminates.
+ *
+ * Frontiers are exchanged as Java byte arrays with an int length, so the serialized
+ * part of a frontier sent to one worker is limited to 2 GB.
+ */
+class MCShard
+{
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 1 && args[0].equals("--worker")) {
+            // exit explicitly, as the Lace threads may otherwise keep a failed worker alive
+            try {
+                worker(args);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
+        if (args.length < 2) {
+            System.out.println("Use: jsylvan.MCShard <filename> <processes> [workers]");
+            return;
+        }
+
+        String filename = args[0];
+        int n = Integer.parseInt(args[1]);
+        int w = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+        if (n < 1 || (n & (n-1)) != 0) throw new RuntimeException("number of processes must be a power of 2");
+
+        ServerSocket server = new ServerSocket(0, n, InetAddress.getLoopbackAddress());
+        List<Process> processes = new ArrayList<Process>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        boolean finished = false;
+        try {
+            coordinate(server, processes, sockets, filename, n, w);
+            finished = true;
+        } finally {
+            server.close();
+            for (Socket s : sockets) s.close();
+            // do not leave workers behind if the coordinator fails
+            if (!finished) for (Process p : processes) p.destroy();
+        }
+    }
+
+    private static void coordinate(ServerSocket server, List<Process> processes, List<Socket> sockets, String filename, int n, int w) throws IOException, InterruptedException {
+        // start the workers, using the same JVM and classpath as the coordinator
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        for (int i=0; i<n; i++) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, MCShard.class.getName(), "--worker",
+                    Integer.toString(server.getLocalPort()), Integer.toString(i), Integer.toString(n), filename, Integer.toString(w));
+            pb.inheritIO();
+            processes.add(pb.start());
+        }
+
+        // accept the connections; each worker first sends its index
+        // a worker that fails during startup never connects, so check on them while waiting
+        server.setSoTimeout(1000);
+        DataInputStream[] in = new DataInputStream[n];
+        DataOutputStream[] out = new DataOutputStream[n];
+        int connected = 0;
+        while (connected < n) {
+            Socket s;
+            try {
+                s = server.accept();
+            } catch (SocketTimeoutException ex) {
+                for (Process p : processes) {
+                    if (!p.isAlive()) throw new IOException("worker exited before connecting");
+                }
+                continue;
+            }
+            sockets.add(s);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            int i = dis.readInt();
+            in[i] = dis;
+            out[i] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            connected++;
+        }
+        final long t1 = System.nanoTime();
+
+        byte[] buffer = new byte[65536];
+        long level_counter = 1;
+        boolean running = true;
+        while (running) {
+            // forward the outgoing frontiers of each worker to their owners, as they arrive
+            for (int i=0; i<n; i++) {
+                for (int j=0; j<n; j++) {
+                    if (i != j) forwardBlob(in[i], out[j], buffer);
+                }
+            }
+
+            // detect global termination
+            running = false;
+            double count = 0;
+            for (int i=0; i<n; i++) {
+                running |= in[i].readBoolean();
+                count += in[i].readDouble();
+            }
+            for (int i=0; i<n; i++) {
+                out[i].writeBoolean(running);
+                out[i].flush();
+            }
+            System.out.format("Level %d: %.0f new states\n", level_counter++, count);
+        }
+
+        final long t2 = System.nanoTime();
+
+        // partitions are disjoint, so the totals are the sums
+        double states = 0;
+        long nodes = 0;
+        for (int i=0; i<n; i++) {
+            states += in[i].readDouble();
+            nodes += in[i].readLong();
+        }
+        for (Process p : processes) p.waitFor();
+
+        System.out.format("Expired time: %d.%d seconds\n", (t2-t1)/1000000000, (t2-t1)%1000000000);
+        System.out.format("Final result: %.0f states\n", states);
+        System.out.format("Final result: %d nodes (sum over %d processes)\n", nodes, n);
+    }
+
+    private static void worker(String[] args) throws IOException, InterruptedException {
+        int port = Integer.parseInt(args[1]);
+        int id = Integer.parseInt(args[2]);
+        int n = Integer.parseInt(args[3]);
+        String filename = args[4];
+        int w = Integer.parseInt(args[5]);
+
+        // use at most 400 MB for the two tables, per process
+        JSylvan.init(w, 400L*1024*1024, 1, 4, 1);
+        MCFile f = MCFile.fromFile(filename);
+
+        int k = Integer.numberOfTrailingZeros(n);
+        if (k > f.getTotalBits()) throw new RuntimeException("more processes than states");
+
+        // the partition of every process
+        long[] parts = new long[n];
+        for (int j=0; j<n; j++) parts[j] = makePartition(j, k);
+
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            work(f, s, parts, id, n);
+        } finally {
+            s.close();
+        }
+    }
+
+    private static void work(MCFile f, Socket s, long[] parts, int id, int n) throws IOException, InterruptedException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeInt(id);
+        out.flush();
+
+        long states = JSylvan.ref(JSylvan.makeAnd(f.getInitial(), parts[id]));
+        long new_states = JSylvan.ref(states);
+        boolean running = true;
+        while (running) {
+            long cur_states = new_states;
+            long next = f.next(cur_states);
+            JSylvan.deref(cur_states);
+
+            // split the successors by owner
+            long local = JSylvan.getFalse();
+            byte[][] blobs = new byte[n][];
+            for (int j=0; j<n; j++) {
+                long a = JSylvan.ref(JSylvan.makeAnd(next, parts[j]));
+                if (j == id) {
+                    local = a;
+                } else {
+                    blobs[j] = a == JSylvan.getFalse() ? new byte[0] : JSylvan.toBinary(new long[]{a});
+                    JSylvan.deref(a);
+                }
+            }
+            JSylvan.deref(next);
+
+            // send in the background, since the coordinator forwards while we are still sending
+            Sender sender = new Sender(out, blobs);
+            sender.start();
+
+            // add the successors found by the other processes
+            for (int j=0; j<n; j++) {
+                if (j == id) continue;
+                byte[] data = readBlob(in);
+                if (data.length == 0) continue;
+                long a = JSylvan.ref(JSylvan.fromBinary(data)[0]);
+                long b = JSylvan.ref(JSylvan.makeOr(local, a));
+                JSylvan.deref(a);
+                JSylvan.deref(local);
+                local = b;
+            }
+            sender.join();
+            if (sender.error != null) throw sender.error;
+
+            new_states = JSylvan.ref(JSylvan.makeIte(states, JSylvan.getFalse(), local)); // local - states
+            JSylvan.deref(local);
+            long temp = JSylvan.ref(JSylvan.makeOr(states, new_states));
+            JSylvan.deref(states);
+            states = temp;
+
+            out.writeBoolean(new_states != JSylvan.getFalse());
+            out.writeDouble(JSylvan.satcount(new_states, f.getDomain()));
+            out.flush();
+            running = in.readBoolean();
+        }
+        JSylvan.deref(new_states);
+
+        out.writeDouble(JSylvan.satcount(states, f.getDomain()));
+        out.writeLong(JSylvan.nodecount(states));
+        out.flush();
+    }
+
+    /**
+     * Compute the cube of the top <k> state variables that encodes <index>.
+     * The result is ref'ed.
+     */
+    private static long makePartition(int index, int k) {
+        long result = JSylvan.getTrue();
+        for (int i=k-1; i>=0; i--) {
+            long var = JSylvan.ref(JSylvan.makeVar(2*(k-1-i)));
+            long lit = ((index >> i) & 1) == 1 ? var : JSylvan.makeNot(var);
+            long temp = JSylvan.ref(JSylvan.makeAnd(result, lit));
+            JSylvan.deref(var);
+            JSylvan.deref(result);
+            result = temp;
+        }
+        return result;
+    }
+
+    private static byte[] readBlob(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void forwardBlob(DataInputStream in, DataOutputStream out, byte[] buffer) throws IOException {
+        int len = in.readInt();
+        out.writeInt(len);
+        while (len > 0) {
+            int k = in.read(buffer, 0, Math.min(len, buffer.length));
+            if (k < 0) throw new EOFException();
+            out.write(buffer, 0, k);
+            len -= k;
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the serialized frontiers of a worker; the entry of the worker itself is null.
+     * Only does socket I/O, as JSylvan may only be used by the thread that initialized it.
+     */
+    private static class Sender extends Thread
+    {
+        private final DataOutputStream out;
+        private final byte[][] blobs;
+        IOException error;
+
+        Sender(DataOutputStream out, byte[][] blobs) {
+            this.out = out;
+            this.blobs = blobs;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int j=0; j<blobs.length; j++) {
+                    if (blobs[j] == null) continue;
+                    out.writeInt(blobs[j].length);
+                    out.write(blobs[j]);
+                    blobs[j] = null;
+                }
+                out.flush();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+    }
+}